@@ -1,7 +1,6 @@
 package io.occode.examples.runemate;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.runemate.game.api.hybrid.Environment;
 import com.runemate.game.api.hybrid.local.Screen;
@@ -14,8 +13,17 @@ import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 /**
@@ -39,7 +47,6 @@ public class OCCodeWebServices {
         basicData.put("token", token);
         basicData.put("client", client);
         basicData.put("script", scriptName);
-        sessionID = getSessionID();
     }
 
     /**
@@ -48,17 +55,55 @@ public class OCCodeWebServices {
      */
     private long getSessionID() {
         try {
-            return Long.parseLong(Objects.requireNonNull(sendRequest(server + "/id", "POST", generateJson(basicData))));
+            return Long.parseLong(Objects.requireNonNull(sendRequest("/id", "POST", generateJson(basicData))));
         } catch (Exception e) {
             return -1;
         }
     }
 
+    /**
+     * Requests a session ID from the server if this session doesn't have one yet. Only one thread requests it at a time,
+     * and failed requests are retried after a backoff growing from 1 second to at most a minute.
+     */
+    private void ensureSession() {
+        if (sessionID != -1) return;
+        synchronized (sessionLock) {
+            if (sessionID != -1 || System.nanoTime() - sessionRetryAt < 0) return;
+            awaitFirstProbe();
+            long id = getSessionID();
+            if (id == -1) {
+                sessionRetryAt = System.nanoTime() + Math.min(TimeUnit.MINUTES.toNanos(1), TimeUnit.SECONDS.toNanos(1L << Math.min(sessionFailures++, 6)));
+            } else {
+                sessionFailures = 0;
+                sessionID = id;
+            }
+        }
+    }
+
     private AbstractBot bot;
     private String token, client = "RUNEMATE", forumUsername, scriptName;
-    private Gson gson = new GsonBuilder().create();
 
-    private String server = "https://occode.io/services";
+    // Shared across instances, Gson is thread-safe and expensive to build.
+    private static final Gson gson = new Gson();
+
+    // Servers to route requests to [See #setServers], and the one this session's requests stick to.
+    private volatile List<Endpoint> endpoints = Collections.singletonList(new Endpoint("https://occode.io/services"));
+    private volatile Endpoint pinned;
+    private volatile long lastProbe;
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile Future<?> probeRound;
+
+    private static final long PROBE_INTERVAL = TimeUnit.SECONDS.toNanos(30), PROBE_DEADLINE = TimeUnit.SECONDS.toNanos(3);
+    // The session moves off its server once that is this much slower than the fastest healthy server.
+    private static final double REPIN_FACTOR = 2;
+    private static final long REPIN_MARGIN = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int CONNECT_TIMEOUT = 5000, READ_TIMEOUT = 10000;
+
+    // Skips screenshot requests so AWT and ImageIO are never loaded [Recommended: when running without a display].
+    private boolean headless = Boolean.getBoolean("java.awt.headless");
+
+    // Records outgoing requests and server responses while set [See #startRecording].
+    private volatile TrafficRecorder recorder;
 
     // Supplier when to stop the thread [Recommended: when your bot is not running anymore].
     private Supplier<Boolean> shouldStop = () -> true;
@@ -70,9 +115,25 @@ public class OCCodeWebServices {
     private Map<String, Object> customMap = new LinkedHashMap<>();
     private Map<String, Object> imageMap = new LinkedHashMap<>();
     private Map<String, Object> pauseMap = new LinkedHashMap<>();
+    private Map<String, Object> profileMap = new LinkedHashMap<>();
+    private Map<String, Object> rateMap = new LinkedHashMap<>();
+    private Map<String, Object> customRateMap = new LinkedHashMap<>();
+
+    // Profiled sections by name, recorded from the script thread and reported with each session update.
+    private final Map<String, ProfiledSection> sections = new ConcurrentHashMap<>();
+    private long lastLoopNanos;
 
-    // Session ID
-    private Long sessionID;
+    // Derived rates by metric name, updated from the cumulative values sent with each session update.
+    // Custom metrics are kept apart so they can't collide with "experience" and "actions".
+    private final Map<String, RateTracker> rates = new ConcurrentHashMap<>();
+    private final Map<String, RateTracker> customRates = new ConcurrentHashMap<>();
+    private final AtomicLong actions = new AtomicLong();
+
+    // Session ID, requested from our server on first use so construction never blocks.
+    private volatile long sessionID = -1;
+    private final Object sessionLock = new Object();
+    private long sessionRetryAt = System.nanoTime();
+    private int sessionFailures;
 
     /**
      * Returns your current sessions ID.
@@ -84,11 +145,14 @@ public class OCCodeWebServices {
             TimerTask timerTask = new TimerTask() {
                 @Override
                 public void run() {
-                    if (sessionID == -1) sessionID = getSessionID(); // Add this line in #setup function.
+                    ensureSession();
                     if (shouldStop.get()) {
                         timer.cancel();
                         timer.purge();
-                    } else runnable.run();
+                    } else {
+                        probeEndpoints();
+                        runnable.run();
+                    }
                 }
             };
             timer.scheduleAtFixedRate(timerTask, 0, 1000);
@@ -96,29 +160,127 @@ public class OCCodeWebServices {
     }
 
     /**
-     * Sends http request using set request method.
+     * Sends http request using set request method, failing over to the next server on errors, timeouts and maintenance.
      *
-     * @param url           Send http request to this url.
+     * @param endpoint      Send http request to this endpoint on the server.
      * @param requestMethod POST or GET.
      * @param body          Send this in request body.
      * @return Server output.
      */
-    private String sendRequest(@Nonnull String url, @Nonnull String requestMethod, String body) {
-        try {
-            URL sURL = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) sURL.openConnection();
-            connection.setDoOutput(true);
-            connection.setRequestMethod(requestMethod);
-            connection.getOutputStream().write((body + "\r\n").getBytes(Charset.forName("UTF-8")));
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                String response = reader.readLine();
-                checkResponse(response);
-                return response;
+    private String sendRequest(@Nonnull String endpoint, @Nonnull String requestMethod, String body) {
+        TrafficRecorder recorder = this.recorder;
+        byte[] payload = (body + "\r\n").getBytes(StandardCharsets.UTF_8);
+        long sent = System.nanoTime();
+        if (recorder != null) recorder.request(endpoint, sent, String.valueOf(body).getBytes(StandardCharsets.UTF_8));
+        String response = null;
+        for (Iterator<Endpoint> route = route().iterator(); route.hasNext(); ) {
+            Endpoint server = route.next();
+            try {
+                URL sURL = new URL(server.url + endpoint);
+                HttpURLConnection connection = (HttpURLConnection) sURL.openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+                connection.setDoOutput(true);
+                connection.setRequestMethod(requestMethod);
+                connection.getOutputStream().write(payload);
+                int code = connection.getResponseCode();
+                if (code >= 500) throw new IOException("Server returned HTTP response code: " + code);
+                if (code < 400) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+                        response = reader.readLine();
+                    }
+                    if ("503".equals(response)) {
+                        response = null;
+                        throw new IOException("Server is under maintenance.");
+                    }
+                }
+                server.succeeded();
+                pinned = server;
+                checkResponse(code < 400 ? response : String.valueOf(code));
+                break;
+            } catch (Exception e) {
+                server.failed();
+                if (route.hasNext()) System.out.println("Request to " + server.url + " failed, failing over: " + e);
+                else e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return null;
+        if (recorder != null) recorder.response(endpoint, sent, System.nanoTime(), response);
+        return response;
+    }
+
+    /**
+     * Orders the servers to try a request on: healthy servers from fastest to slowest, then the unhealthy ones.
+     * Once a session ID is assigned, the server it's pinned to stays first for as long as it's healthy
+     * and not more than twice as slow as the fastest healthy server.
+     * @return Servers in the order to try them
+     */
+    private List<Endpoint> route() {
+        long now = System.nanoTime();
+        List<Endpoint> healthy = new ArrayList<>(), unhealthy = new ArrayList<>();
+        Map<Endpoint, Double> latencies = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            (endpoint.isHealthy(now) ? healthy : unhealthy).add(endpoint);
+            latencies.put(endpoint, endpoint.getLatency());
+        }
+        healthy.sort(Comparator.comparingDouble(latencies::get));
+        unhealthy.sort(Comparator.comparingDouble(latencies::get));
+        Endpoint pinned = this.pinned;
+        if (pinned != null && sessionID != -1 && healthy.contains(pinned)) {
+            double pinnedLatency = latencies.get(pinned), fastest = latencies.get(healthy.get(0));
+            if (pinnedLatency <= fastest * REPIN_FACTOR || pinnedLatency - fastest <= REPIN_MARGIN) {
+                healthy.remove(pinned);
+                healthy.add(0, pinned);
+            }
+        }
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    /**
+     * Starts measuring the latency of every server in the background, if there is more than one and the last probe was over 30 seconds ago.
+     * Servers are probed in parallel, and those that haven't answered within 3 seconds count as failed.
+     */
+    private void probeEndpoints() {
+        long now = System.nanoTime();
+        List<Endpoint> endpoints = this.endpoints;
+        if (endpoints.size() < 2 || (lastProbe != 0 && now - lastProbe < PROBE_INTERVAL) || !probing.compareAndSet(false, true)) return;
+        lastProbe = now;
+        long deadline = now + PROBE_DEADLINE;
+        probeRound = Probes.executor.submit(() -> {
+            try {
+                List<Future<?>> probes = new ArrayList<>();
+                for (Endpoint endpoint : endpoints) probes.add(Probes.executor.submit(() -> endpoint.probe(deadline)));
+                for (int i = 0; i < probes.size(); i++) {
+                    try {
+                        probes.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        endpoints.get(i).failed();
+                    } catch (Exception ignored) {
+                    }
+                }
+            } finally {
+                probing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Waits up to 3 seconds for a probe round if there is more than one server and none of them has a known latency yet,
+     * so a new session starts on the fastest server instead of the first one set.
+     */
+    private void awaitFirstProbe() {
+        List<Endpoint> endpoints = this.endpoints;
+        if (endpoints.size() < 2) return;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getLatency() != Double.POSITIVE_INFINITY) return;
+        }
+        probeEndpoints();
+        Future<?> round = probeRound;
+        if (round == null) return;
+        try {
+            round.get(PROBE_DEADLINE, TimeUnit.NANOSECONDS);
+        } catch (Exception ignored) {
+        }
     }
 
     /**
@@ -142,6 +304,73 @@ public class OCCodeWebServices {
         shouldStop = supplier;
     }
 
+    /**
+     * Enables headless mode, where the session is only reported and screenshot requests are ignored.
+     * Defaults to the value of the java.awt.headless system property.
+     * @param headless True if no screenshots should be taken
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    /**
+     * Sets the servers to route requests to, e.g. mirrors or local stand-in servers. Their latency is probed every 30 seconds,
+     * requests go to the fastest healthy one, and fail over to the next on errors, timeouts or maintenance.
+     * Once a session ID is assigned, requests stick to the same server for as long as it stays healthy
+     * and isn't more than twice as slow as the fastest one.
+     * Defaults to https://occode.io/services.
+     * @param servers Server urls, endpoints are appended to them
+     */
+    public void setServers(@Nonnull String... servers) {
+        if (servers.length == 0) throw new IllegalArgumentException("At least one server is required.");
+        List<Endpoint> replacement = new ArrayList<>();
+        for (String server : servers) replacement.add(new Endpoint(server));
+        endpoints = Collections.unmodifiableList(replacement);
+        pinned = null;
+        lastProbe = 0;
+    }
+
+    /**
+     * Returns the server this session's requests are currently routed to.
+     * @return Server url
+     */
+    public String getServer() {
+        return route().get(0).url;
+    }
+
+    /**
+     * Starts recording every request and server response of this session to a binary trace file,
+     * which can be replayed for load testing with {@link TrafficReplayer}.
+     * @param file Trace file, overwritten if it already exists
+     * @param includePayloads True to store request and response bodies, otherwise only their sizes are kept
+     * @throws IOException If the trace file can't be created
+     */
+    public void startRecording(@Nonnull File file, boolean includePayloads) throws IOException {
+        stopRecording();
+        recorder = new TrafficRecorder(new FileOutputStream(file), includePayloads);
+    }
+
+    /**
+     * Stops recording and closes the trace file, if a recording was started.
+     */
+    public void stopRecording() {
+        TrafficRecorder current = recorder;
+        recorder = null;
+        if (current != null) current.close();
+    }
+
+    /**
+     * Replays recorded traces through this session's transport, e.g. against a stand-in server.
+     * @param speed 1 for real time, 10 for ten times faster, 0 or less to send as fast as possible
+     * @param traces Trace files recorded with {@link #startRecording(File, boolean)}
+     * @return Replayed and recorded latencies per endpoint
+     * @throws IOException If a trace can't be read
+     * @throws InterruptedException If interrupted while waiting for requests to complete
+     */
+    public TrafficReplayer.Summary replay(double speed, @Nonnull File... traces) throws IOException, InterruptedException {
+        return TrafficReplayer.replay((endpoint, body) -> sendRequest(endpoint, "POST", body), speed, traces);
+    }
+
     /**
      * Adds a custom metric to measure throughout the web session. Used to render a graph for on the session's data view.
      * @param name Name of the metric you're tracking
@@ -151,6 +380,128 @@ public class OCCodeWebServices {
         customMap.put(name, value);
     }
 
+    /**
+     * Marks the start of a profiled section.
+     * @return Start time to pass to {@link #endSection(String, long)}
+     */
+    public long startSection() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a profiled section. The p50, p95, p99 and max durations of each section are reported with every session update.
+     * @param name Name of the section, e.g. "banking"
+     * @param start Start time returned by {@link #startSection()}
+     */
+    public void endSection(@Nonnull String name, long start) {
+        recordSection(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs and profiles a section.
+     * @param name Name of the section
+     * @param section Code to run
+     */
+    public void profile(@Nonnull String name, @Nonnull Runnable section) {
+        long start = System.nanoTime();
+        try {
+            section.run();
+        } finally {
+            recordSection(name, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Marks the end of a loop iteration, profiling the time since the previous call as the "loop" section.
+     * Call this once at the start or end of every loop of your script.
+     */
+    public void markLoop() {
+        long now = System.nanoTime();
+        if (lastLoopNanos != 0) recordSection("loop", now - lastLoopNanos);
+        lastLoopNanos = now;
+    }
+
+    /**
+     * Records a duration for a profiled section.
+     * @param name Name of the section
+     * @param nanos Duration in nanoseconds
+     */
+    public void recordSection(@Nonnull String name, long nanos) {
+        ProfiledSection section = sections.get(name);
+        if (section == null) section = sections.computeIfAbsent(name, n -> new ProfiledSection());
+        section.interval.record(nanos);
+    }
+
+    /**
+     * Returns every duration recorded for a section during this session, up to the last session update.
+     * @param name Name of the section
+     * @return Copy of the session sketch, or null if the section was never profiled
+     */
+    public LatencySketch getSection(@Nonnull String name) {
+        ProfiledSection section = sections.get(name);
+        if (section == null) return null;
+        LatencySketch copy = new LatencySketch();
+        copy.merge(section.total);
+        return copy;
+    }
+
+    /**
+     * Counts an action of your script, e.g. a click or an interaction. Its rate is reported as the "actions" metric.
+     */
+    public void countAction() {
+        actions.incrementAndGet();
+    }
+
+    /**
+     * Returns the live rates of a metric: "experience" or "actions". Rates are updated with every session update.
+     * @param metric Metric name
+     * @return Rate tracker, or null if the metric hasn't been updated or given a target yet
+     */
+    public RateTracker getRate(@Nonnull String metric) {
+        return rates.get(metric);
+    }
+
+    /**
+     * Returns the live rates of a numeric custom metric. Rates are updated with every session update.
+     * @param name Name of the custom metric
+     * @return Rate tracker, or null if the metric hasn't been updated or given a target yet
+     */
+    public RateTracker getCustomRate(@Nonnull String name) {
+        return customRates.get(name);
+    }
+
+    /**
+     * Sets a target value for a metric, e.g. the experience of the next level, to report the time left until it's reached.
+     * @param metric Metric name, "experience" or "actions"
+     * @param target Target value
+     */
+    public void setTarget(@Nonnull String metric, double target) {
+        rates.computeIfAbsent(metric, m -> new RateTracker()).setTarget(target);
+    }
+
+    /**
+     * Sets a target value for a numeric custom metric, to report the time left until it's reached.
+     * @param name Name of the custom metric
+     * @param target Target value
+     */
+    public void setCustomTarget(@Nonnull String name, double target) {
+        customRates.computeIfAbsent(name, m -> new RateTracker()).setTarget(target);
+    }
+
+    /**
+     * Updates the rates of a metric and adds them to the session payload.
+     * @param trackers Trackers of the metric's kind
+     * @param payload Payload map of the metric's kind
+     * @param metric Metric name
+     * @param value Current cumulative value
+     * @param nanos Time of the update
+     */
+    private void trackRate(Map<String, RateTracker> trackers, Map<String, Object> payload, String metric, double value, long nanos) {
+        RateTracker tracker = trackers.computeIfAbsent(metric, m -> new RateTracker());
+        tracker.update(value, nanos);
+        payload.put(metric, tracker.summary());
+    }
+
     /**
      * Update the session for a user who has no login/displayname specified.
      * @param botStatus Bot status
@@ -169,6 +520,7 @@ public class OCCodeWebServices {
      * @param login Username/alias/displayname
      */
     public void update(@Nonnull String botStatus, int experience, long runtime, @Nonnull String login) {
+        ensureSession();
         dataMap.clear();
         dataMap.put("token", token);
         dataMap.put("sid", sessionID);
@@ -180,9 +532,25 @@ public class OCCodeWebServices {
         dataMap.put("runtime", runtime);
         dataMap.put("login", login);
         dataMap.put("custom", customMap);
-        String response = sendRequest(server + "/session", "POST", generateJson(dataMap));
+        profileMap.clear();
+        sections.forEach((name, section) -> {
+            Map<String, Object> summary = section.drain();
+            if (summary != null) profileMap.put(name, summary);
+        });
+        if (!profileMap.isEmpty()) dataMap.put("profile", profileMap);
+        long now = System.nanoTime();
+        rateMap.clear();
+        customRateMap.clear();
+        trackRate(rates, rateMap, "experience", experience, now);
+        if (actions.get() > 0) trackRate(rates, rateMap, "actions", actions.get(), now);
+        customMap.forEach((name, value) -> {
+            if (value instanceof Number) trackRate(customRates, customRateMap, name, ((Number) value).doubleValue(), now);
+        });
+        if (!customRateMap.isEmpty()) rateMap.put("custom", customRateMap);
+        dataMap.put("rates", rateMap);
+        String response = sendRequest("/session", "POST", generateJson(dataMap));
         if (response != null) {
-            if (response.contains("1")) sendScreenshot();
+            if (response.contains("1") && !headless) sendScreenshot();
             switch (response.split(":")[0]) {
                 case "run":
                     if (!bot.isRunning() && !bot.isStopped()) bot.resume();
@@ -198,94 +566,26 @@ public class OCCodeWebServices {
         customMap.clear();
     }
 
-    /**
-     * Scales the image to the boundary size if the image boundaries are greater than the maximum given boundary.
-     * @param imageSize Image size
-     * @param boundary Max size
-     * @return Scaled dimension
-     */
-    private Dimension getScaledDimension(Dimension imageSize, Dimension boundary) {
-        int ow = imageSize.width;
-        int oh = imageSize.height;
-
-        int bw = boundary.width;
-        int bh = boundary.height;
-
-        int nw = ow;
-        int nh = oh;
-
-        // first check if we need to scale width
-        if (ow > bw) {
-            //scale width to fit
-            nw = bw;
-            //scale height to maintain aspect ratio
-            nh = nw * oh / ow;
-        }
-
-        // then check if we need to scale even with the new height
-        if (nh > bh) {
-            //scale height to fit instead
-            nh = bh;
-            //scale width to maintain aspect ratio
-            nw = nh * ow / oh;
-        }
-        return new Dimension(nw, nh);
-    }
-
-    /**
-     * Resizes the image to the determined dimension and returns it.
-     * @param originalImage Image to be resized
-     * @param dimension Dimensions of the new image
-     * @return Resized image
-     */
-    private BufferedImage resizeImage(Image originalImage, Dimension dimension) {
-        BufferedImage resizedImage = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = resizedImage.createGraphics();
-        g2.setComposite(AlphaComposite.Src);
-        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.drawImage(originalImage, 0, 0, dimension.width, dimension.height, null);
-        g2.dispose();
-        return resizedImage;
-    }
-
     /**
      * Sends a screenshot to the server for the appropriate session.
      */
     private void sendScreenshot() {
         try {
-            BufferedImage image = Screen.capture();
+            String image = Screenshots.capture();
             if (image != null) {
-                image = resizeImage(image, getScaledDimension(new Dimension(image.getWidth(), image.getHeight()), new Dimension(600, 400)));
                 imageMap.clear();
                 imageMap.put("sid", sessionID);
                 imageMap.put("token", token);
                 imageMap.put("username", forumUsername);
                 imageMap.put("client", client);
-                imageMap.put("image", imgToBase64String(image));
-                sendRequest(server + "/screenshot", "POST", generateJson(imageMap));
+                imageMap.put("image", image);
+                sendRequest("/screenshot", "POST", generateJson(imageMap));
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    /**
-     * Image in the form of base64 string
-     * @param img Client image
-     * @return Image in 64-bit string form
-     */
-    private String imgToBase64String(final BufferedImage img) {
-        final ByteArrayOutputStream os = new ByteArrayOutputStream();
-        try {
-            ImageIO.write(img, "png", os);
-            return Base64.getEncoder().encodeToString(os.toByteArray());
-        } catch (final IOException ioe) {
-            throw new UncheckedIOException(ioe);
-        }
-    }
-
     /**
      * Converts a Map to a Json string
      * @param data Data map
@@ -303,6 +603,7 @@ public class OCCodeWebServices {
      * @return Server response
      */
     public String sendNotification(String title, String message, NotificationType type) {
+        ensureSession();
         notificationMap.clear();
         notificationMap.put("sid", sessionID);
         notificationMap.put("token", token);
@@ -312,7 +613,7 @@ public class OCCodeWebServices {
         notificationMap.put("bot", scriptName);
         notificationMap.put("client", client);
         notificationMap.put("type", type.op);
-        return sendRequest(server + "/notification", "POST", generateJson(notificationMap));
+        return sendRequest("/notification", "POST", generateJson(notificationMap));
     }
 
     /**
@@ -320,11 +621,12 @@ public class OCCodeWebServices {
      * @param pause True if pause
      */
     private void sendAction(boolean pause) {
+        ensureSession();
         pauseMap.clear();
         pauseMap.put("token", token);
         pauseMap.put("client", "runemate");
         pauseMap.put("sid", sessionID);
-        sendRequest(server + (pause ? "/pause" : "/resume"), "POST", generateJson(pauseMap));
+        sendRequest(pause ? "/pause" : "/resume", "POST", generateJson(pauseMap));
     }
 
     /**
@@ -344,7 +646,7 @@ public class OCCodeWebServices {
     /**
      * Handle responses with helpful messages
      */
-    private Map<Integer, String> responses = new HashMap<Integer, String>() {{
+    private static final Map<Integer, String> responses = new HashMap<Integer, String>() {{
         put(200, "[OK] Everything works as expected.");
         put(400, "[Invalid format] Invalid body format.");
         put(401, "[Unauthorized] Unauthorized access. Probably invalid token.");
@@ -353,6 +655,814 @@ public class OCCodeWebServices {
         put(503, "[Service Unavailable] Server is currently not accepting any requests. Probably under maintenance.");
     }};
 
+    /**
+     * Holds everything that depends on AWT and ImageIO, so those are only loaded once the first screenshot is taken.
+     */
+    private static final class Screenshots {
+
+        /**
+         * Captures the game screen, scaled down to fit 600x400.
+         * @return Image in 64-bit string form, or null if the screen could not be captured
+         */
+        static String capture() {
+            BufferedImage image = Screen.capture();
+            if (image == null) return null;
+            image = resizeImage(image, getScaledDimension(new Dimension(image.getWidth(), image.getHeight()), new Dimension(600, 400)));
+            return imgToBase64String(image);
+        }
+
+        /**
+         * Scales the image to the boundary size if the image boundaries are greater than the maximum given boundary.
+         * @param imageSize Image size
+         * @param boundary Max size
+         * @return Scaled dimension
+         */
+        private static Dimension getScaledDimension(Dimension imageSize, Dimension boundary) {
+            int ow = imageSize.width;
+            int oh = imageSize.height;
+
+            int bw = boundary.width;
+            int bh = boundary.height;
+
+            int nw = ow;
+            int nh = oh;
+
+            // first check if we need to scale width
+            if (ow > bw) {
+                //scale width to fit
+                nw = bw;
+                //scale height to maintain aspect ratio
+                nh = nw * oh / ow;
+            }
+
+            // then check if we need to scale even with the new height
+            if (nh > bh) {
+                //scale height to fit instead
+                nh = bh;
+                //scale width to maintain aspect ratio
+                nw = nh * ow / oh;
+            }
+            return new Dimension(nw, nh);
+        }
+
+        /**
+         * Resizes the image to the determined dimension and returns it.
+         * @param originalImage Image to be resized
+         * @param dimension Dimensions of the new image
+         * @return Resized image
+         */
+        private static BufferedImage resizeImage(Image originalImage, Dimension dimension) {
+            BufferedImage resizedImage = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = resizedImage.createGraphics();
+            g2.setComposite(AlphaComposite.Src);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.drawImage(originalImage, 0, 0, dimension.width, dimension.height, null);
+            g2.dispose();
+            return resizedImage;
+        }
+
+        /**
+         * Image in the form of base64 string
+         * @param img Client image
+         * @return Image in 64-bit string form
+         */
+        private static String imgToBase64String(final BufferedImage img) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(img, "png", os);
+                return Base64.getEncoder().encodeToString(os.toByteArray());
+            } catch (final IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Streaming histogram of durations in nanoseconds. Values are counted in log-linear buckets, 32 per power of two,
+     * so quantiles are accurate to within about 3% in constant memory. Sketches merge by adding up their counts.
+     */
+    public static final class LatencySketch {
+
+        private static final int SUB_BUCKET_BITS = 5, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+        private long count, max;
+
+        /**
+         * Records a single duration.
+         * @param nanos Duration in nanoseconds, negative durations are recorded as 0
+         */
+        public synchronized void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts[index(nanos)]++;
+            count++;
+            if (nanos > max) max = nanos;
+        }
+
+        /**
+         * Adds all durations recorded by another sketch to this one.
+         * @param other Sketch to merge
+         */
+        public synchronized void merge(@Nonnull LatencySketch other) {
+            synchronized (other) {
+                for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+                count += other.count;
+                max = Math.max(max, other.max);
+            }
+        }
+
+        /**
+         * Returns the duration below which the given fraction of recorded durations fall.
+         * @param quantile Quantile between 0 and 1, e.g. 0.95 for p95
+         * @return Duration in nanoseconds, 0 if nothing was recorded
+         */
+        public synchronized long getQuantile(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(midpoint(i), max);
+            }
+            return max;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        public synchronized void reset() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            max = 0;
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long midpoint(int index) {
+            int bucket = index >>> SUB_BUCKET_BITS;
+            if (bucket == 0) return index;
+            int shift = bucket - 1;
+            return ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift) + ((1L << shift) >>> 1);
+        }
+    }
+
+    /**
+     * Durations of a profiled section, since the last session update and for the whole session.
+     */
+    private static final class ProfiledSection {
+
+        private final LatencySketch interval = new LatencySketch(), total = new LatencySketch();
+
+        /**
+         * Summarizes the durations recorded since the last call in microseconds, and folds them into the session total.
+         * @return Summary, or null if nothing was recorded since the last call
+         */
+        Map<String, Object> drain() {
+            synchronized (interval) {
+                if (interval.getCount() == 0) return null;
+                Map<String, Object> summary = new LinkedHashMap<>();
+                summary.put("count", interval.getCount());
+                summary.put("p50", interval.getQuantile(0.5) / 1000);
+                summary.put("p95", interval.getQuantile(0.95) / 1000);
+                summary.put("p99", interval.getQuantile(0.99) / 1000);
+                summary.put("max", interval.getMax() / 1000);
+                total.merge(interval);
+                interval.reset();
+                return summary;
+            }
+        }
+    }
+
+    /**
+     * Incrementally derived statistics of a cumulative metric, updated in constant time from primitive state:
+     * an exponentially weighted rate, the change over a sliding window, and the time left until a target value.
+     */
+    public static final class RateTracker {
+
+        private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(10), EWMA_NANOS = TimeUnit.MINUTES.toNanos(5);
+        private static final int SLOTS = 60;
+        private static final long SLOT_NANOS = WINDOW_NANOS / SLOTS;
+        private static final double NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+
+        // Metric value at the start of each slot of the sliding window, head being the current slot.
+        private final double[] slots = new double[SLOTS];
+        private int head, filled;
+        private long slotStart, firstNanos, lastNanos;
+        private double lastValue, ratePerHour, target = Double.NaN;
+        private boolean started;
+
+        /**
+         * Updates the statistics with the current value of the metric.
+         * @param value Current cumulative value
+         * @param nanos System.nanoTime() of the value
+         */
+        synchronized void update(double value, long nanos) {
+            if (!started) {
+                started = true;
+                slots[0] = value;
+                filled = 1;
+                slotStart = nanos;
+                firstNanos = nanos;
+            } else {
+                long passed = (nanos - slotStart) / SLOT_NANOS;
+                if (passed > 0) {
+                    for (long i = Math.min(passed, SLOTS); i > 0; i--) {
+                        head = (head + 1) % SLOTS;
+                        slots[head] = lastValue;
+                    }
+                    filled = (int) Math.min(SLOTS, filled + passed);
+                    slotStart += passed * SLOT_NANOS;
+                }
+                long elapsed = nanos - lastNanos;
+                if (elapsed > 0) {
+                    // Until one time constant has passed, the weight of the tracked time keeps the rate at the average since tracking started.
+                    double instant = (value - lastValue) * NANOS_PER_HOUR / elapsed;
+                    double weight = Math.max(1 - Math.exp(-(double) elapsed / EWMA_NANOS), (double) elapsed / (nanos - firstNanos));
+                    ratePerHour += weight * (instant - ratePerHour);
+                }
+            }
+            lastValue = value;
+            lastNanos = nanos;
+        }
+
+        /**
+         * @return Exponentially weighted rate per hour, over roughly the last 5 minutes
+         */
+        public synchronized double getRatePerHour() {
+            return ratePerHour;
+        }
+
+        /**
+         * @return Change of the metric over the last 10 minutes, or since tracking started if that was more recent
+         */
+        public synchronized double getWindowDelta() {
+            return started ? lastValue - slots[(head - filled + 1 + SLOTS) % SLOTS] : 0;
+        }
+
+        /**
+         * @return Average rate per hour over the last 10 minutes
+         */
+        public synchronized double getWindowRatePerHour() {
+            long span = lastNanos - (slotStart - (filled - 1) * SLOT_NANOS);
+            return span > 0 ? getWindowDelta() * NANOS_PER_HOUR / span : 0;
+        }
+
+        /**
+         * @return Seconds until the target is reached at the current rate, or -1 if no target is set or it is not being approached
+         */
+        public synchronized long getSecondsToTarget() {
+            if (Double.isNaN(target)) return -1;
+            if (lastValue >= target) return 0;
+            return ratePerHour > 0 ? (long) ((target - lastValue) / ratePerHour * 3600) : -1;
+        }
+
+        public synchronized double getValue() {
+            return lastValue;
+        }
+
+        synchronized void setTarget(double target) {
+            this.target = target;
+        }
+
+        /**
+         * @return Compact summary for the session payload
+         */
+        synchronized Map<String, Object> summary() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("rate", Math.round(ratePerHour));
+            summary.put("delta", Math.round(getWindowDelta()));
+            long eta = getSecondsToTarget();
+            if (eta >= 0) summary.put("eta", eta);
+            return summary;
+        }
+    }
+
+    /**
+     * A server the session can be routed to, with its smoothed latency and health.
+     * Failed servers are skipped for an exponentially growing backoff of up to a minute, then tried again.
+     */
+    private static final class Endpoint {
+
+        private static final double LATENCY_WEIGHT = 0.3;
+        private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+        private static final int PROBE_TIMEOUT = 1500;
+
+        final String url;
+        private double latencyNanos = Double.NaN;
+        private int failures;
+        private long downUntil;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        synchronized void succeeded() {
+            failures = 0;
+        }
+
+        /**
+         * Updates the latency only, a successful probe doesn't end a backoff earned by a failed request.
+         * The latency is only measured by probes, so it isn't skewed by the size of the requests a server handled.
+         */
+        synchronized void probed(long nanos) {
+            latencyNanos = Double.isNaN(latencyNanos) ? nanos : latencyNanos + LATENCY_WEIGHT * (nanos - latencyNanos);
+        }
+
+        synchronized void failed() {
+            failures++;
+            downUntil = System.nanoTime() + Math.min(MAX_BACKOFF_NANOS, TimeUnit.SECONDS.toNanos(1L << Math.min(failures - 1, 6)));
+        }
+
+        synchronized boolean isHealthy(long nanos) {
+            return failures == 0 || nanos - downUntil >= 0;
+        }
+
+        /**
+         * @return Smoothed probe latency in nanoseconds, infinite if the server hasn't answered a probe yet
+         */
+        synchronized double getLatency() {
+            return Double.isNaN(latencyNanos) ? Double.POSITIVE_INFINITY : latencyNanos;
+        }
+
+        /**
+         * Measures the latency of the server with a GET request. Any response below 500 counts as healthy,
+         * except a "503" body, which the server answers with while under maintenance.
+         * @param deadline System.nanoTime() after which the result is ignored, as the probe already counts as failed
+         */
+        void probe(long deadline) {
+            long start = System.nanoTime();
+            boolean healthy;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setConnectTimeout(PROBE_TIMEOUT);
+                connection.setReadTimeout(PROBE_TIMEOUT);
+                int code = connection.getResponseCode();
+                healthy = code < 500;
+                if (code < 400) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+                        healthy = !"503".equals(reader.readLine());
+                    }
+                }
+                connection.disconnect();
+            } catch (IOException e) {
+                healthy = false;
+            }
+            long end = System.nanoTime();
+            if (end - deadline > 0) return;
+            if (healthy) probed(end - start);
+            else failed();
+        }
+    }
+
+    /**
+     * Holds the threads servers are probed on, so they are only created once more than one server is set.
+     * Idle threads exit after a minute.
+     */
+    private static final class Probes {
+
+        static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "OCCode server probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Writes requests and responses to a compact binary trace. Endpoints are written once and then referenced by index,
+     * numbers are written as variable length integers and times are microseconds since the recording started.
+     */
+    private static final class TrafficRecorder {
+
+        static final int MAGIC = 0x4F435452; // "OCTR"
+        static final int VERSION = 1;
+        static final int ENDPOINT = 0, REQUEST = 1, RESPONSE = 2;
+
+        private final DataOutputStream out;
+        private final boolean includePayloads;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Integer> endpoints = new HashMap<>();
+        private boolean closed;
+
+        TrafficRecorder(OutputStream stream, boolean includePayloads) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream));
+            this.includePayloads = includePayloads;
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeBoolean(includePayloads);
+                out.writeLong(System.currentTimeMillis());
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Records an outgoing request.
+         * @param endpoint Endpoint the request is sent to
+         * @param timeNanos System.nanoTime() when the request was sent
+         * @param body Request body
+         */
+        synchronized void request(String endpoint, long timeNanos, byte[] body) {
+            if (closed) return;
+            try {
+                int id = endpointId(endpoint);
+                out.writeByte(REQUEST);
+                writeVarLong(out, (timeNanos - startNanos) / 1000);
+                writeVarLong(out, id);
+                writePayload(body);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Records the server response to a request.
+         * @param endpoint Endpoint the request was sent to
+         * @param sentNanos System.nanoTime() when the request was sent
+         * @param receivedNanos System.nanoTime() when the response was read
+         * @param response Server output, null if the request failed
+         */
+        synchronized void response(String endpoint, long sentNanos, long receivedNanos, String response) {
+            if (closed) return;
+            try {
+                int id = endpointId(endpoint);
+                out.writeByte(RESPONSE);
+                writeVarLong(out, (receivedNanos - startNanos) / 1000);
+                writeVarLong(out, id);
+                writeVarLong(out, (receivedNanos - sentNanos) / 1000);
+                out.writeBoolean(response != null);
+                writePayload(response == null ? new byte[0] : response.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Closes the trace. Requests still in flight when the recording stopped are ignored.
+         */
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private int endpointId(String endpoint) throws IOException {
+            Integer id = endpoints.get(endpoint);
+            if (id == null) {
+                id = endpoints.size();
+                endpoints.put(endpoint, id);
+                out.writeByte(ENDPOINT);
+                out.writeUTF(endpoint);
+            }
+            return id;
+        }
+
+        private void writePayload(byte[] payload) throws IOException {
+            writeVarLong(out, payload.length);
+            if (includePayloads) out.write(payload);
+        }
+
+        private void fail(IOException e) {
+            e.printStackTrace();
+            close();
+        }
+
+        static void writeVarLong(DataOutput out, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        static long readVarLong(DataInput in) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed trace, variable length integer is too long.");
+        }
+    }
+
+    /**
+     * Replays traces recorded with {@link #startRecording(File, boolean)} against a target, at real or accelerated speed.
+     * Several traces are merged on their recorded start times, so sessions recorded side by side replay as one fleet.
+     * Traces recorded without payloads are replayed with blank bodies of the recorded size.
+     *
+     * Usage: java io.occode.examples.runemate.OCCodeWebServices$TrafficReplayer <server> <speed> <trace>...
+     */
+    public static final class TrafficReplayer {
+
+        /**
+         * Receives replayed requests.
+         */
+        public interface Target {
+            /**
+             * @param endpoint Recorded endpoint, e.g. /session
+             * @param body Recorded request body
+             * @return Server output, null if the request failed
+             */
+            String send(String endpoint, String body);
+        }
+
+        public static void main(String[] args) throws Exception {
+            if (args.length < 3) {
+                System.out.println("Usage: TrafficReplayer <server> <speed> <trace>...");
+                return;
+            }
+            File[] traces = new File[args.length - 2];
+            for (int i = 2; i < args.length; i++) traces[i - 2] = new File(args[i]);
+            System.out.println(replay(http(args[0]), Double.parseDouble(args[1]), traces));
+        }
+
+        /**
+         * Target which posts every request to the given server, e.g. a local stand-in server.
+         * @param server Server url, endpoints are appended to it
+         * @return Http target
+         */
+        public static Target http(@Nonnull String server) {
+            return (endpoint, body) -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(server + endpoint).openConnection();
+                    connection.setConnectTimeout(10000);
+                    connection.setReadTimeout(10000);
+                    connection.setDoOutput(true);
+                    connection.setRequestMethod("POST");
+                    connection.getOutputStream().write((body + "\r\n").getBytes(StandardCharsets.UTF_8));
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+                        return reader.readLine();
+                    }
+                } catch (IOException e) {
+                    return null;
+                }
+            };
+        }
+
+        /**
+         * Replays the traces using 32 concurrent senders.
+         * @see #replay(Target, double, int, File...)
+         */
+        public static Summary replay(@Nonnull Target target, double speed, @Nonnull File... traces) throws IOException, InterruptedException {
+            return replay(target, speed, 32, traces);
+        }
+
+        /**
+         * Replays the traces against the target and waits for every request to complete.
+         * @param target Receives the replayed requests
+         * @param speed 1 for real time, 10 for ten times faster, 0 or less to send as fast as possible
+         * @param senders Amount of requests that may be in flight at once
+         * @param traces Trace files
+         * @return Replayed latencies, measured from when each request was due, and recorded latencies per endpoint
+         */
+        public static Summary replay(@Nonnull Target target, double speed, int senders, @Nonnull File... traces) throws IOException, InterruptedException {
+            Summary summary = new Summary();
+            PriorityQueue<TraceReader> queue = new PriorityQueue<>(Comparator.comparingLong((TraceReader reader) -> reader.offsetMicros));
+            List<TraceReader> readers = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, senders));
+            try {
+                for (File trace : traces) {
+                    try {
+                        readers.add(new TraceReader(trace, summary));
+                    } catch (EOFException e) {
+                        System.out.println("Skipping " + trace + ", it ends before its header.");
+                    }
+                }
+                long firstStart = Long.MAX_VALUE;
+                for (TraceReader reader : readers) firstStart = Math.min(firstStart, reader.startMillis);
+                for (TraceReader reader : readers) {
+                    reader.shiftMicros = (reader.startMillis - firstStart) * 1000;
+                    if (reader.next()) queue.add(reader);
+                    else reader.close();
+                }
+                long start = System.nanoTime();
+                while (!queue.isEmpty()) {
+                    TraceReader reader = queue.poll();
+                    long due = System.nanoTime();
+                    if (speed > 0) {
+                        due = start + (long) (reader.offsetMicros * 1000 / speed);
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    String endpoint = reader.endpoint;
+                    String body = reader.body;
+                    long scheduled = due;
+                    executor.execute(() -> {
+                        long sent = System.nanoTime();
+                        String response = target.send(endpoint, body);
+                        summary.stats(endpoint).replayed(System.nanoTime() - scheduled, sent - scheduled, response != null);
+                    });
+                    if (reader.next()) queue.add(reader);
+                    else reader.close();
+                }
+            } finally {
+                for (TraceReader reader : readers) reader.close();
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            return summary;
+        }
+
+        /**
+         * Reads a single trace one request at a time, collecting recorded response latencies on the way.
+         */
+        private static final class TraceReader {
+
+            private final File file;
+            private final DataInputStream in;
+            private final boolean payloads;
+            private final Summary summary;
+            private final List<String> endpoints = new ArrayList<>();
+
+            // Wall clock start of the recording, and how far it started after the earliest trace being replayed.
+            private final long startMillis;
+            private long shiftMicros;
+
+            private long offsetMicros;
+            private String endpoint, body;
+
+            TraceReader(File file, Summary summary) throws IOException {
+                this.file = file;
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                this.summary = summary;
+                try {
+                    if (in.readInt() != TrafficRecorder.MAGIC || in.readByte() != TrafficRecorder.VERSION) {
+                        throw new IOException(file + " is not a supported trace file.");
+                    }
+                    this.payloads = in.readBoolean();
+                    this.startMillis = in.readLong();
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+
+            /**
+             * Advances to the next request in the trace. A trace cut off in the middle of a record, e.g. by a killed
+             * instance that never stopped its recording, ends at its last complete record.
+             * @return False once the trace has no more requests
+             */
+            boolean next() throws IOException {
+                try {
+                    return readNext();
+                } catch (EOFException e) {
+                    System.out.println(file + " is truncated, replaying it up to its last complete record.");
+                    return false;
+                }
+            }
+
+            private boolean readNext() throws IOException {
+                while (true) {
+                    int kind = in.read();
+                    switch (kind) {
+                        case -1:
+                            return false;
+                        case TrafficRecorder.ENDPOINT:
+                            endpoints.add(in.readUTF());
+                            break;
+                        case TrafficRecorder.REQUEST:
+                            offsetMicros = shiftMicros + TrafficRecorder.readVarLong(in);
+                            endpoint = endpoints.get((int) TrafficRecorder.readVarLong(in));
+                            body = readPayload();
+                            return true;
+                        case TrafficRecorder.RESPONSE:
+                            TrafficRecorder.readVarLong(in);
+                            String responseEndpoint = endpoints.get((int) TrafficRecorder.readVarLong(in));
+                            long latencyMicros = TrafficRecorder.readVarLong(in);
+                            boolean success = in.readBoolean();
+                            readPayload();
+                            summary.stats(responseEndpoint).recorded(latencyMicros * 1000, success);
+                            break;
+                        default:
+                            throw new IOException("Malformed trace, unknown record " + kind + ".");
+                    }
+                }
+            }
+
+            private String readPayload() throws IOException {
+                int size = (int) TrafficRecorder.readVarLong(in);
+                if (!payloads) {
+                    char[] blank = new char[size];
+                    Arrays.fill(blank, ' ');
+                    return new String(blank);
+                }
+                byte[] payload = new byte[size];
+                in.readFully(payload);
+                return new String(payload, StandardCharsets.UTF_8);
+            }
+
+            void close() {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Replayed and recorded latencies per endpoint.
+         */
+        public static final class Summary {
+
+            private final Map<String, EndpointStats> endpoints = new TreeMap<>();
+
+            private synchronized EndpointStats stats(String endpoint) {
+                return endpoints.computeIfAbsent(endpoint, e -> new EndpointStats());
+            }
+
+            public synchronized Map<String, EndpointStats> getEndpoints() {
+                return new TreeMap<>(endpoints);
+            }
+
+            @Override
+            public synchronized String toString() {
+                StringBuilder builder = new StringBuilder("endpoint | replayed | failed | avg ms | max ms | queued avg ms | recorded avg ms");
+                endpoints.forEach((endpoint, stats) -> builder.append('\n').append(endpoint).append(" | ").append(stats));
+                return builder.toString();
+            }
+        }
+
+        public static final class EndpointStats {
+
+            private long replayed, replayFailures, replayNanos, replayMaxNanos, queuedNanos;
+            private long recorded, recordedFailures, recordedNanos;
+
+            /**
+             * @param nanos Time from when the request was due until its response
+             * @param queuedNanos Time from when the request was due until it was sent
+             * @param success False if the request failed
+             */
+            private synchronized void replayed(long nanos, long queuedNanos, boolean success) {
+                replayed++;
+                if (!success) replayFailures++;
+                replayNanos += nanos;
+                replayMaxNanos = Math.max(replayMaxNanos, nanos);
+                this.queuedNanos += queuedNanos;
+            }
+
+            private synchronized void recorded(long nanos, boolean success) {
+                recorded++;
+                if (!success) recordedFailures++;
+                recordedNanos += nanos;
+            }
+
+            public synchronized long getReplayed() {
+                return replayed;
+            }
+
+            public synchronized long getReplayFailures() {
+                return replayFailures;
+            }
+
+            public synchronized double getReplayAverageMillis() {
+                return replayed == 0 ? 0 : replayNanos / 1e6 / replayed;
+            }
+
+            public synchronized double getReplayMaxMillis() {
+                return replayMaxNanos / 1e6;
+            }
+
+            /**
+             * @return Average time requests waited for a free sender after they were due, included in the replay latency
+             */
+            public synchronized double getQueuedAverageMillis() {
+                return replayed == 0 ? 0 : queuedNanos / 1e6 / replayed;
+            }
+
+            public synchronized long getRecordedFailures() {
+                return recordedFailures;
+            }
+
+            public synchronized double getRecordedAverageMillis() {
+                return recorded == 0 ? 0 : recordedNanos / 1e6 / recorded;
+            }
+
+            @Override
+            public synchronized String toString() {
+                return String.format("%d | %d | %.2f | %.2f | %.2f | %.2f", replayed, replayFailures, getReplayAverageMillis(), getReplayMaxMillis(), getQueuedAverageMillis(), getRecordedAverageMillis());
+            }
+        }
+    }
+
     public enum NotificationType {
         GENERAL(0),
         ERROR(1),